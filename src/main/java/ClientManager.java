@@ -14,6 +14,8 @@ class ClientManager extends Thread {
     private final BufferedReader in;
     private final PrintWriter out;
     private String username;
+    //Volatile because disconnect() may run on another thread when this session is replaced
+    private volatile long sessionId = ClientRegistry.NO_ID;
     private volatile boolean running = true;
 
     public ClientManager(Socket socket, Server server) throws IOException {
@@ -34,12 +36,11 @@ class ClientManager extends Thread {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        if (username == null || username.trim().isEmpty()) {
-            username = "Anonymous";
-        }
 
-        //Save data about the client on the server
-        server.registerClient(username, this);
+        //Save data about the client on the server (a blank username gets a unique anonymous name)
+        ClientRegistry.Registration<ClientManager> registration = server.registerClient(username, this);
+        username = registration.username();
+        sessionId = registration.id();
 
         sendMessage("Instructions:");
         sendMessage("- To send to all: just type your message");
@@ -53,6 +54,8 @@ class ClientManager extends Thread {
             try {
                 if (!(running && (message = in.readLine()) != null)) break;
             } catch (IOException e) {
+                //Socket was closed on purpose (e.g. the same username logged in again)
+                if (!running) break;
                 throw new RuntimeException(e);
             }
             handleMessage(message);
@@ -67,7 +70,7 @@ class ClientManager extends Thread {
 
         try {
             //Removes disconnected client from server's data
-            server.removeClient(username);
+            server.removeClient(sessionId, this);
 
             if (!socket.isClosed()) {
                 socket.close();
@@ -0,0 +1,242 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+//Keeps connected clients indexed by username, but stores them in per-core shards of plain arrays
+//so that broadcasting walks contiguous memory instead of hashing and comparing usernames
+class ClientRegistry<T> {
+    static final long NO_ID = -1;
+    private static final int INITIAL_SHARD_CAPACITY = 16;
+
+    //Result of a registration: the session id and username given to the new client
+    //and the client it replaced (if any)
+    record Registration<T>(long id, String username, T displaced) {
+    }
+
+    //Username -> session id; the only place where usernames are hashed
+    private final Map<String, Long> index = new ConcurrentHashMap<>();
+    private final Shard[] shards;
+    private final int shardBits;
+    private final int shardMask;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final AtomicInteger anonymousCount = new AtomicInteger();
+
+    ClientRegistry() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    ClientRegistry(int shardCount) {
+        //Round up to a power of two so the shard can be packed into the low bits of the session id
+        int bits = 32 - Integer.numberOfLeadingZeros(Math.max(1, shardCount) - 1);
+        this.shardBits = bits;
+        this.shardMask = (1 << bits) - 1;
+        this.shards = new Shard[1 << bits];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new Shard(i, bits);
+        }
+    }
+
+    //Registers the client under the username. If the username is already taken the old client
+    //is dropped from the registry and returned, so the caller can close its connection
+    Registration<T> register(String username, T client) {
+        return register(username, client, true);
+    }
+
+    //Registers the client under a fresh "<prefix>#<n>" name. Never replaces an existing client,
+    //so any number of anonymous sessions can stay connected at the same time
+    Registration<T> registerAnonymous(String prefix, T client) {
+        Registration<T> registration;
+        do {
+            registration = register(prefix + "#" + anonymousCount.incrementAndGet(), client, false);
+        } while (registration == null);
+        return registration;
+    }
+
+    //Returns null if the username is taken and replacing is not allowed
+    private Registration<T> register(String username, T client, boolean replace) {
+        Shard shard = shards[nextShard.getAndIncrement() & shardMask];
+        Object[] displaced = new Object[1];
+        boolean[] registered = new boolean[1];
+        long id = index.compute(username, (name, oldId) -> {
+            if (oldId != null) {
+                if (!replace) {
+                    return oldId;
+                }
+                displaced[0] = shardOf(oldId).release(oldId, null);
+            }
+            registered[0] = true;
+            return shard.allocate(name, client);
+        });
+        if (!registered[0]) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T old = (T) displaced[0];
+        return new Registration<>(id, username, old);
+    }
+
+    //Removes the session if it still belongs to the given client. Returns the username it was
+    //registered under, or null if the session was already removed or replaced
+    String remove(long id, T client) {
+        if (id == NO_ID) {
+            return null;
+        }
+        String username = shardOf(id).nameAt(id, client);
+        if (username == null) {
+            return null;
+        }
+        String[] removed = new String[1];
+        index.computeIfPresent(username, (name, currentId) -> {
+            if (currentId == id && shardOf(id).release(id, client) != null) {
+                removed[0] = name;
+                return null;
+            }
+            return currentId;
+        });
+        return removed[0];
+    }
+
+    T get(String username) {
+        if (username == null) {
+            return null;
+        }
+        Long id = index.get(username);
+        if (id == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T client = (T) shardOf(id).get(id);
+        return client;
+    }
+
+    long idOf(String username) {
+        if (username == null) {
+            return NO_ID;
+        }
+        return index.getOrDefault(username, NO_ID);
+    }
+
+    Set<String> usernames() {
+        return new HashSet<>(index.keySet());
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    //Visits every registered client except the one with the given session id (NO_ID skips none)
+    void forEachExcept(long skipId, Consumer<? super T> action) {
+        int skipShard = skipId != NO_ID ? (int) skipId & shardMask : -1;
+        int skipSlot = skipId != NO_ID ? slotOf(skipId) : -1;
+        for (int s = 0; s < shards.length; s++) {
+            Shard.Snapshot snapshot = shards[s].snapshot;
+            Object[] clients = snapshot.clients();
+            int skip = s == skipShard ? skipSlot : -1;
+            for (int i = 0; i < clients.length; i++) {
+                Object client = clients[i];
+                if (client != null && !(i == skip && snapshot.ids()[i] == skipId)) {
+                    @SuppressWarnings("unchecked")
+                    T typed = (T) client;
+                    action.accept(typed);
+                }
+            }
+        }
+    }
+
+    private Shard shardOf(long id) {
+        return shards[(int) id & shardMask];
+    }
+
+    private int slotOf(long id) {
+        return (int) id >>> shardBits;
+    }
+
+    //A shard is copy-on-write: joins and leaves are rare compared to broadcasts, so readers
+    //get a stable array without locking while writers publish a fresh copy.
+    //Session ids are <generation><slot><shard>; the generation of a slot grows every time the slot
+    //is reused, so an id is never handed out twice and a stale id cannot reach the slot's new owner
+    private static final class Shard {
+        //Clients and their ids are published together so lock-free readers always see a matching pair
+        private record Snapshot(Object[] clients, long[] ids) {
+        }
+
+        private final int index;
+        private final int shardBits;
+        private volatile Snapshot snapshot = new Snapshot(new Object[INITIAL_SHARD_CAPACITY], new long[INITIAL_SHARD_CAPACITY]);
+        private String[] names = new String[INITIAL_SHARD_CAPACITY];
+        private int[] generations = new int[INITIAL_SHARD_CAPACITY];
+        private int[] freeSlots = new int[INITIAL_SHARD_CAPACITY];
+        private int freeCount;
+        private int used;
+
+        Shard(int index, int shardBits) {
+            this.index = index;
+            this.shardBits = shardBits;
+        }
+
+        synchronized long allocate(String username, Object client) {
+            int slot;
+            if (freeCount > 0) {
+                slot = freeSlots[--freeCount];
+            } else {
+                slot = used++;
+            }
+            Object[] clients = snapshot.clients().clone();
+            long[] ids = snapshot.ids().clone();
+            if (slot >= clients.length) {
+                clients = Arrays.copyOf(clients, clients.length * 2);
+                ids = Arrays.copyOf(ids, clients.length);
+                names = Arrays.copyOf(names, clients.length);
+                generations = Arrays.copyOf(generations, clients.length);
+            }
+            long id = Integer.toUnsignedLong(++generations[slot]) << 32 | (long) slot << shardBits | index;
+            clients[slot] = client;
+            ids[slot] = id;
+            names[slot] = username;
+            snapshot = new Snapshot(clients, ids);
+            return id;
+        }
+
+        //Frees the slot only if it still holds the session with this id (and the expected client,
+        //if given). Returns the removed client, or null if nothing was changed
+        synchronized Object release(long id, Object expected) {
+            int slot = (int) id >>> shardBits;
+            Snapshot current = snapshot;
+            if (slot >= current.clients().length || current.ids()[slot] != id) {
+                return null;
+            }
+            Object client = current.clients()[slot];
+            if (client == null || (expected != null && client != expected)) {
+                return null;
+            }
+            Object[] clients = current.clients().clone();
+            long[] ids = current.ids().clone();
+            clients[slot] = null;
+            ids[slot] = 0;
+            names[slot] = null;
+            if (freeCount == freeSlots.length) {
+                freeSlots = Arrays.copyOf(freeSlots, freeSlots.length * 2);
+            }
+            freeSlots[freeCount++] = slot;
+            snapshot = new Snapshot(clients, ids);
+            return client;
+        }
+
+        synchronized String nameAt(long id, Object client) {
+            int slot = (int) id >>> shardBits;
+            Snapshot current = snapshot;
+            return slot < current.clients().length && current.ids()[slot] == id && current.clients()[slot] == client
+                    ? names[slot] : null;
+        }
+
+        Object get(long id) {
+            int slot = (int) id >>> shardBits;
+            Snapshot current = snapshot;
+            return slot < current.clients().length && current.ids()[slot] == id ? current.clients()[slot] : null;
+        }
+    }
+}
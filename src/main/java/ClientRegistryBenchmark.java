@@ -0,0 +1,84 @@
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Compares broadcasting through ClientRegistry with the previous ConcurrentHashMap<String, ClientManager> loop.
+//Usage: java ClientRegistryBenchmark [clients] [broadcasts]
+public class ClientRegistryBenchmark {
+    //Stands in for ClientManager so the benchmark does not need sockets
+    static final class Sink {
+        long received;
+
+        void sendMessage(String message) {
+            received += message.length();
+        }
+    }
+
+    public static void main(String[] args) {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : 1_000;
+        int broadcasts = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+
+        Map<String, Sink> map = new ConcurrentHashMap<>();
+        ClientRegistry<Sink> registry = new ClientRegistry<>();
+        for (int i = 0; i < clientCount; i++) {
+            //Separate instances so equals() has to compare characters, like usernames read from sockets
+            String username = new String("user" + i);
+            map.put(username, new Sink());
+            registry.register(new String(username), new Sink());
+        }
+        String sender = new String("user" + clientCount / 2);
+        String message = "Hello everyone";
+
+        System.out.println("Clients: " + clientCount + ", broadcasts: " + broadcasts);
+        for (int round = 1; round <= 6; round++) {
+            long mapTime;
+            long registryTime;
+            //Alternate which structure runs first so neither always gets the warmer caches
+            if (round % 2 == 1) {
+                mapTime = time(() -> broadcastWithMap(map, sender, message, broadcasts));
+                registryTime = time(() -> broadcastWithRegistry(registry, sender, message, broadcasts));
+            } else {
+                registryTime = time(() -> broadcastWithRegistry(registry, sender, message, broadcasts));
+                mapTime = time(() -> broadcastWithMap(map, sender, message, broadcasts));
+            }
+            System.out.printf("Round %d: ConcurrentHashMap %.2f ns/recipient, ClientRegistry %.2f ns/recipient%n",
+                    round,
+                    (double) mapTime / ((long) broadcasts * clientCount),
+                    (double) registryTime / ((long) broadcasts * clientCount));
+        }
+
+        //Print the totals so the JIT cannot drop the work
+        long checksum = 0;
+        for (Sink sink : map.values()) {
+            checksum += sink.received;
+        }
+        long[] registryChecksum = new long[1];
+        registry.forEachExcept(ClientRegistry.NO_ID, sink -> registryChecksum[0] += sink.received);
+        System.out.println("Checksum: " + checksum + " / " + registryChecksum[0]);
+    }
+
+    //Same loop Server.broadcastMessage used before the registry, with the text built once per
+    //broadcast like the registry loop so only the data structures are compared
+    private static void broadcastWithMap(Map<String, Sink> clients, String sender, String message, int times) {
+        for (int n = 0; n < times; n++) {
+            String text = sender + ": " + message;
+            for (Map.Entry<String, Sink> entry : clients.entrySet()) {
+                if (!entry.getKey().equals(sender)) {
+                    entry.getValue().sendMessage(text);
+                }
+            }
+        }
+    }
+
+    private static void broadcastWithRegistry(ClientRegistry<Sink> clients, String sender, String message, int times) {
+        for (int n = 0; n < times; n++) {
+            String text = sender + ": " + message;
+            clients.forEachExcept(clients.idOf(sender), sink -> sink.sendMessage(text));
+        }
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return System.nanoTime() - start;
+    }
+}
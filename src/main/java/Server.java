@@ -7,7 +7,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Stream;
 
 public class Server {
@@ -15,8 +14,11 @@ public class Server {
     private final String serverName;
     private final Set<String> bannedPhrases;
 
-    //ConcurrentHashMap instead of a regular one to help with changing data by multiple ClientManagers
-    private final Map<String, ClientManager> clients = new ConcurrentHashMap<>();
+    //Registry gives every session an integer id and keeps connections in per-core shards,
+    //so broadcasting does not have to hash or compare usernames for every recipient
+    private final ClientRegistry<ClientManager> clients = new ClientRegistry<>();
+    //Names starting with this prefix and '#' are reserved for clients that did not enter a username
+    private static final String ANONYMOUS_NAME = "Anonymous";
     private ServerSocket serverSocket;
     private volatile boolean running = true;
     private final ServerGUI gui;
@@ -148,20 +150,45 @@ public class Server {
         }
     }
 
-    public void registerClient(String username, ClientManager manager) {
-        clients.put(username, manager);
+    public ClientRegistry.Registration<ClientManager> registerClient(String username, ClientManager manager) {
+        ClientRegistry.Registration<ClientManager> registration;
+        boolean blank = username == null || username.trim().isEmpty();
+        if (blank || username.startsWith(ANONYMOUS_NAME + "#")) {
+            //Anonymous clients never replace each other - each one gets its own numbered name,
+            //and nobody can take over such a name by typing it in
+            registration = clients.registerAnonymous(ANONYMOUS_NAME, manager);
+            if (!blank) {
+                manager.sendMessage("Server: Usernames starting with '" + ANONYMOUS_NAME + "#' are reserved, you are connected as " + registration.username());
+            }
+            username = registration.username();
+        } else {
+            registration = clients.register(username, manager);
+        }
+
+        //The same username logged in again - close the previous connection instead of leaking it
+        ClientManager displaced = registration.displaced();
+        if (displaced != null) {
+            displaced.sendMessage("Server: You have been disconnected because " + username + " logged in from another connection");
+            displaced.disconnect();
+            gui.appendLog(username + " reconnected, previous connection closed");
+        }
+
         broadcastMessage(null, username + " has joined the chat");
         sendClientList();
+        return registration;
     }
 
-    public void removeClient(String username) {
-        clients.remove(username);
+    public void removeClient(long sessionId, ClientManager manager) {
+        //Nothing to announce if the session was never registered or has already been replaced
+        String username = clients.remove(sessionId, manager);
+        if (username == null) return;
+
         broadcastMessage(null, username + " has left the chat");
         sendClientList();
     }
 
     public Set<String> getClientList() {
-        return new HashSet<>(clients.keySet());
+        return clients.usernames();
     }
 
     public String containsBannedPhrase(String message) {
@@ -182,12 +209,19 @@ public class Server {
             return;
         }
 
-        for (Map.Entry<String, ClientManager> entry : clients.entrySet()) {
-            if (recipients == null || recipients.contains(entry.getKey())) {
-                if (!entry.getKey().equals(sender)) {
-                    entry.getValue().sendMessage(
-                            (sender != null ? sender + ": " : "") + message
-                    );
+        String text = (sender != null ? sender + ": " : "") + message;
+
+        if (recipients == null) {
+            clients.forEachExcept(clients.idOf(sender), manager -> manager.sendMessage(text));
+            return;
+        }
+
+        //Targeted messages only look up the listed users instead of walking every connection
+        for (String recipient : recipients) {
+            if (!recipient.equals(sender)) {
+                ClientManager manager = clients.get(recipient);
+                if (manager != null) {
+                    manager.sendMessage(text);
                 }
             }
         }